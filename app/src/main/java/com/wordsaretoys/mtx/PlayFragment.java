@@ -53,8 +53,8 @@ public class PlayFragment extends Fragment {
 			}
 			
 			@Override
-			public void onCellDown(int cell) {
-				synthesizer.playTone(cell);
+			public void onCellDown(int cell, long time) {
+				synthesizer.playTone(cell, time);
 			}
 		});
 		
@@ -68,11 +68,7 @@ public class PlayFragment extends Fragment {
 		spinVoice.setOnItemSelectedListener(new OnItemSelectedListener() {
 			@Override
 			public void onItemSelected(AdapterView<?> parent, View view, int pos, long id) {
-				synthesizer.setInstrument(
-						Lookup.VoiceSource[pos], 
-						Lookup.VoiceAttack[pos], 
-						Lookup.VoiceRelease[pos]);
-				synthesizer.generateBuffers(scale, octaveLo, octaveHi);
+				synthesizer.setVoice(pos);
 			}
 
 			@Override
@@ -101,7 +97,7 @@ public class PlayFragment extends Fragment {
 		});
 		spinRange.setSelection(2);	// C4-C6
 		
-		synthesizer = new Synthesizer();
+		synthesizer = new Synthesizer(getActivity());
 		if (savedInstanceState != null) {
 			synthesizer.restore(savedInstanceState);
 		}
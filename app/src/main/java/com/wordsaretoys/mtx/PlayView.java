@@ -25,7 +25,7 @@ public class PlayView extends CellView {
 	 * callbacks for cell touch
 	 */
 	public interface Listener {
-		public void onCellDown(int cell);
+		public void onCellDown(int cell, long time);
 		public void onCellUp(int cell);
 	}
 
@@ -161,7 +161,7 @@ public class PlayView extends CellView {
 			if (i >= 0 && i < cells.length && cells[i] == -1) {
 				// store it off and inform client
 				cells[i] = id;
-				listener.onCellDown(i);
+				listener.onCellDown(i, e.getEventTime());
 				// redraw 
 				postInvalidate();
 			}
@@ -9,9 +9,9 @@ import android.os.Bundle;
  */
 public class Scale {
 
-	static int OctaveLo = 0;
-	static int OctaveMid = 4;
-	static int OctaveHi = 9;
+	static int OctaveLo = Tuning.OctaveLo;
+	static int OctaveMid = Tuning.OctaveMid;
+	static int OctaveHi = Tuning.OctaveHi;
 	
 	/**
 	 * represents a single tone in scale
@@ -96,6 +96,14 @@ public class Scale {
 		return pitches[index];
 	}
 	
+	/**
+	 * get frequencies of every tone in an octave range,
+	 * plus the first tone of the next octave
+	 */
+	public float[] getPitches(int octaveLo, int octaveHi) {
+		return Tuning.getRange(pitches, tones.size(), octaveLo, octaveHi);
+	}
+	
 	/**
 	 * get tone interval
 	 */
@@ -125,46 +133,39 @@ public class Scale {
 	 * generate pitch array
 	 */
 	public void generatePitches() {
-		// is the pitch array correctly sized?
-		int len = tones.size() * (OctaveHi - OctaveLo + 1);
-		if (pitches == null || pitches.length != len) {
-			pitches = new float[len];
-		}
-
-		// interval sum gives us total number of tones
-		int sum = 0;
-		for (int i = 0; i< tones.size(); i++) {
-			sum += tones.get(i).interval;
-		}
-		
-		// generate scale root
-		float root = (float) Math.pow(2f, 1f / sum);
-		
-		// for each octave
-		for (int o = OctaveLo; o <= OctaveHi; o++) {
-			int on = sum * (o - OctaveMid);
-			int oi = tones.size() * (o - OctaveLo);
-			// for each scale degree within the octave 
-			for (int i = 0, step = 0; i < tones.size(); i++) {
-				Tone tone = tones.get(i);
-				// lock zero to the octave start
-				pitches[i + oi] = (float)(440f * Math.pow(root, step + on - 0.75f * sum));
-				// sum the next interval to get scale degree
-				step += tone.interval;
-			}
-		}
+		pitches = Tuning.getPitches(getSteps(), pitches);
 	}
 	
 	/**
-	 * store scale data to a bundle
+	 * get intervals of all tones
 	 */
-	public void backup(Bundle b) {
+	int[] getSteps() {
 		int[] steps = new int[tones.size()];
 		for (int i = 0; i < tones.size(); i++) {
 			steps[i] = tones.get(i).interval;
 		}
+		return steps;
+	}
+	
+	/**
+	 * replace all tones with the given intervals
+	 */
+	void setSteps(int[] steps) {
+		tones.clear();
+		for (int i = 0; i < steps.length; i++) {
+			Tone tone = new Tone();
+			tone.interval = steps[i];
+			tones.add(tone);
+		}
+		generatePitches();
+	}
+	
+	/**
+	 * store scale data to a bundle
+	 */
+	public void backup(Bundle b) {
 		Bundle s = new Bundle();
-		s.putIntArray("steps", steps);
+		s.putIntArray("steps", getSteps());
 		s.putString("name", name);
 		s.putLong("id", id);
 		s.putBoolean("dirty", dirty);
@@ -176,14 +177,7 @@ public class Scale {
 	 */
 	public void restore(Bundle b) {
 		b = b.getBundle("scale");
-		int[] steps = b.getIntArray("steps"); 
-		tones.clear();
-		for (int i = 0; i < steps.length; i++) {
-			Tone tone = new Tone();
-			tone.interval = steps[i];
-			tones.add(tone);
-		}
-		generatePitches();
+		setSteps(b.getIntArray("steps"));
 		name = b.getString("name");
 		id = b.getLong("id");
 		dirty = b.getBoolean("dirty");
@@ -195,14 +189,7 @@ public class Scale {
 	 * n is any integer > 0
 	 */
 	public void load(String steps) {
-		String [] s = steps.split(",");
-		tones.clear();
-		for (int i = 0; i < s.length; i++) {
-			Tone tone = new Tone();
-			tone.interval = Integer.parseInt(s[i]);
-			tones.add(tone);
-		}
-		generatePitches();
+		setSteps(Tuning.parseSteps(steps));
 	}
 	
 	/**
@@ -211,13 +198,6 @@ public class Scale {
 	 * n is any integer > 0
 	 */
 	public String toString() {
-		String s = "";
-		for (int i = 0; i < tones.size(); i++) {
-			if (i > 0) {
-				s += ",";
-			}
-			s += tones.get(i).interval;
-		}
-		return s;
+		return Tuning.formatSteps(getSteps());
 	}
 }
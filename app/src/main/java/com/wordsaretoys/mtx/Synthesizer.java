@@ -3,265 +3,416 @@ package com.wordsaretoys.mtx;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
-import java.util.ArrayList;
+import java.util.HashMap;
 
-import android.media.AudioFormat;
+import android.content.Context;
 import android.media.AudioManager;
 import android.media.AudioTrack;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 
 /**
- * maintains a pool of low-latency tone generators 
+ * plays scale tones through the synth engine
+ * into a single low-latency output stream
  */
 public class Synthesizer {
 
 	static String TAG = "Synthesizer";
 
-	static int SourceLen = 65536;
-	static int SourceMod = SourceLen - 1;
-	
 	static float MinVolume = 0.01f;
 	
-	final static int Attack = 0;
-	final static int Sustain = 1;
-	final static int Release = 2;
+	// builder messages
+	final static int M_BUILD = 0;
+	final static int M_INIT = 1;
+	
+	// quiet time before a rebuild runs, ms
+	static int BuildDelay = 100;
+	
+	// wait before retrying a note-off the queue refused, ms
+	static int RetryDelay = 2;
+	
+	// smallest render block, frames
+	static int MinBlockLen = 128;
 	
 	/**
-	 * voice object
+	 * tone object 
 	 */
-	class Voice {
-		// audio track object
-		AudioTrack track;
-		// sound volume
-		float volume;
-		// tone index
-		int tone;
-		// envelope state
-		int state;
+	class Tone {
+		// phase increment per output sample
+		float increment;
+		// wavetable band
+		int band;
 	}
-
+	
 	/**
-	 * tone buffer object 
+	 * complete set of playable tones
+	 * replaced as a whole, never modified once live
 	 */
-	class Tone {
-		// sample buffer
-		short[] buffer;
-		// sample rate
-		int rate;
+	class ToneSet {
+		// array of tones
+		Tone[] tones;
+		// inputs the set was built from
+		String range;
 	}
 	
 	/**
-	 * instrument timbre object
+	 * retries a refused note-off on the UI thread
 	 */
-	class Timbre {
-		// attack rate
-		float attack;
-		// release rate
-		float release;
-		// harmonics
-		float[] harmonics;
-		// harmonic sum
-		float sum;
+	class NoteOffRetry implements Runnable {
+		int tone;
+		
+		@Override
+		public void run() {
+			retries.remove(tone);
+			stopTone(tone);
+		}
 	}
 	
 	/**
-	 * volume control handler callback
+	 * tone set builder callback
 	 */
-	class VolumeHandler implements Handler.Callback {
+	class BuildHandler implements Handler.Callback {
 		@Override
 		public boolean handleMessage(Message msg) {
-			for (int i = 0; i < voices.size(); i++) {
-				Voice voice = voices.get(i);
-				if (voice.track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
-					voice.track.setStereoVolume(voice.volume, voice.volume);
-					switch (voice.state) {
-					case Attack:
-						voice.volume += timbre.attack;
-						if (voice.volume >= maxVolume) {
-							voice.volume = maxVolume;
-							voice.state = Sustain;
-						}
-						break;
-						
-					case Sustain:
-						break;
-						
-					case Release:
-						voice.volume -= timbre.release;
-						if (voice.volume <= MinVolume) {
-							voice.volume = MinVolume;
-							voice.track.pause();
-							voice.track.flush();
-							voice.tone = -1;
-						}
-						break;
-					}
-				}
+			switch (msg.what) {
+			case M_BUILD:
+				build();
+				break;
+				
+			case M_INIT:
+				init();
+				break;
 			}
-			handler.sendEmptyMessageDelayed(0, 1);
 			return true;
 		}
 	}
+	
+	/**
+	 * audio render thread
+	 * mixes active voices into blocks and streams them out
+	 */
+	class Renderer extends Player {
+		
+		public Renderer(Engine engine, Sink sink) {
+			super("synthesizer renderer", engine, sink);
+		}
+		
+		@Override
+		protected long now() {
+			// same clock as input event times
+			return SystemClock.uptimeMillis();
+		}
+		
+		@Override
+		public void run() {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+			super.run();
+		}
+	}
 
-	// native sample rate for all tracks
+	// native sample rate for output track
 	int sampleRate;
 	
-	// list of pooled voices
-	ArrayList<Voice> voices;
+	// native frames per buffer of the output
+	int burst;
 	
-	// array of tones
-	Tone[] tones;
-
-	// current instrument
-	Timbre timbre;
+	// streaming output, owned by the renderer once started
+	TrackSink sink;
+	
+	// render thread, started once the instruments are ready
+	Renderer renderer;
+	
+	// true once the renderer is running, and once released
+	// so a late start is skipped (UI thread only)
+	boolean ready;
+	boolean released;
 	
-	// volume control handler
+	// current instrument voice index (UI thread only)
+	int voice;
+	
+	// voice pool and mixer
+	Engine engine;
+	
+	// live tone set, swapped by the builder
+	volatile ToneSet toneSet;
+	
+	// inputs for the next tone set
+	float[] nextPitches;
+	String nextRange;
+	
+	// background tone set builder
+	HandlerThread builder;
 	Handler handler;
 	
+	// posts back to the UI thread
+	Handler main;
+	
+	// pending note-off retries by tone (UI thread only)
+	HashMap<Integer, NoteOffRetry> retries;
+
 	// max volume for all voices
 	float maxVolume;
 	
 	/**
 	 * ctor
 	 */
-	public Synthesizer() {
-		voices = new ArrayList<Voice>();
-		handler = new Handler(new VolumeHandler());
-		handler.sendEmptyMessage(0);
-		timbre = new Timbre();
-		timbre.harmonics = new float[0];
-		sampleRate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+	public Synthesizer(Context context) {
+		queryOutput(context);
 		maxVolume = 0.25f;
-		// cache a few voices
-		addVoice(); 
-		addVoice();
-		addVoice();
+		
+		// render in whole bursts, so each write lines
+		// up with what the output mixer pulls
+		int blockLen = burst * ((MinBlockLen + burst - 1) / burst);
+		engine = new Engine(sampleRate, blockLen);
+		engine.setVolume(maxVolume);
+		sink = new TrackSink(sampleRate, blockLen);
+		renderer = new Renderer(engine, sink);
+		
+		builder = new HandlerThread("synthesizer builder", 
+				Process.THREAD_PRIORITY_BACKGROUND);
+		builder.start();
+		handler = new Handler(builder.getLooper(), new BuildHandler());
+		main = new Handler(Looper.getMainLooper());
+		retries = new HashMap<Integer, NoteOffRetry>();
+		// instruments are rendered before any tone set is built
+		handler.sendEmptyMessage(M_INIT);
+	}
+	
+	/**
+	 * render every instrument up front, so switching between
+	 * them is just a swap, then start the renderer on the UI 
+	 * thread; runs on the builder
+	 */
+	void init() {
+		for (int v = 0; v < Lookup.VoiceSource.length; v++) {
+			Wavetable wavetable = new Wavetable(Lookup.VoiceSource[v], sampleRate);
+			engine.addTimbre(wavetable, Lookup.VoiceAttack[v], Lookup.VoiceDecay[v], 
+					Lookup.VoiceSustain[v], Lookup.VoiceRelease[v]);
+		}
+		main.post(new Runnable() {
+			@Override
+			public void run() {
+				start();
+			}
+		});
 	}
 	
 	/**
-	 * set instrument parameters
+	 * start rendering with the chosen instrument
+	 * (UI thread only, it feeds the event queue)
 	 */
-	public void setInstrument(float[] harmonics, float attack, float release) {
-		timbre.attack = attack;
-		timbre.release = release;
-		timbre.harmonics = harmonics;
-		// get harmonic sum
-		float sum = 0;
-		for (int h = 0; h < harmonics.length; h++) {
-			sum += harmonics[h];
+	void start() {
+		if (released) {
+			return;
 		}
-		timbre.sum = sum;
+		ready = true;
+		engine.setTimbre(voice);
+		renderer.start();
+		renderer.resume();
 	}
 	
 	/**
-	 * generate sample buffer for a given frequency and instrument
+	 * get the native sample rate and frames per buffer
+	 * of the output, falling back to defaults on devices
+	 * too old to report them
 	 */
-	void generateSample(short[] buffer, float freq) {
-		for (int h = 0; h < timbre.harmonics.length; h++) {
-			if (timbre.harmonics[h] != 0) {
-				float w = (float)((h + 1) * Math.PI / (buffer.length - 1));
-				float a = timbre.harmonics[h] / timbre.sum;
-				for (int i = 0; i < buffer.length; i++) {
-					float s = a * (float) Math.sin(w * i);
-					buffer[i] += (short)(s * 16384);
-				}
+	void queryOutput(Context context) {
+		sampleRate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+		burst = Engine.BlockLen;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+			AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+			String rate = am.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE);
+			if (rate != null) {
+				sampleRate = Integer.parseInt(rate);
+			}
+			String frames = am.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER);
+			if (frames != null) {
+				burst = Integer.parseInt(frames);
 			}
 		}
 	}
 	
 	/**
-	 * generate tone buffers from specified
+	 * get track buffer size, in frames
+	 */
+	public int getBufferFrames() {
+		return sink.getBufferFrames();
+	}
+	
+	/**
+	 * set instrument from voice lookup index
+	 * takes effect at the next block, and sounding
+	 * tones crossfade to the new waveform
+	 * (UI thread only, it feeds the event queue)
+	 */
+	public void setVoice(int voice) {
+		this.voice = voice;
+		if (ready) {
+			engine.setTimbre(voice);
+		}
+	}
+	
+	/**
+	 * generate tones from specified
 	 * scale and octave range
+	 * 
+	 * the pitches are copied here, but the new tone set is
+	 * built in the background; the old set plays until then
 	 */
 	public void generateBuffers(Scale scale, int octaveLo, int octaveHi) {
-		// create the array of tone buffers
-		int tc = scale.getToneCount();
-		int oc = octaveHi - octaveLo + 1;
-		// always include the first note of the next octave
-		tones = new Tone[tc * oc + 1];
-		// for each tone
-		for (int t = 0; t < tones.length; t++) {
-			tones[t] = new Tone();
-			int degree = t % tc;
-			int octave = t / tc + octaveLo;
-			// find buffer length required to fit 1 sample period
-			// at the specified tone frequency
-			float freq = scale.getFrequency(octave, degree);
-			int len = (int)(sampleRate / freq);
-			tones[t].buffer = new short[len];
-			// generate a sample for this buffer
-			generateSample(tones[t].buffer, freq);
-			// find adjusted playback rate to compensate
-			tones[t].rate = sampleRate * (len - 1) / len;
+		float[] pitches = scale.getPitches(octaveLo, octaveHi);
+		synchronized (this) {
+			nextPitches = pitches;
+			nextRange = scale.toString() + ":" + octaveLo + "-" + octaveHi;
 		}
+		scheduleBuild();
 	}
 	
 	/**
-	 * play a single tone, allocating a new voice
-	 * when necessary.  
+	 * (re)start the build timer, so a burst of
+	 * changes results in a single rebuild
 	 */
-	public void playTone(int tone) {
-		Voice voice = null;
-		
-		// find the last inactive voice
-		for (int i = 0; i < voices.size();  i++) {
-			Voice v = voices.get(i);
-			if (v.tone == -1) {
-				voice = v;
-			}
+	void scheduleBuild() {
+		handler.removeMessages(M_BUILD);
+		handler.sendEmptyMessageDelayed(M_BUILD, BuildDelay);
+	}
+	
+	/**
+	 * build a complete tone set from the latest
+	 * inputs and make it live; runs on the builder
+	 */
+	void build() {
+		float[] pitches;
+		String range;
+		synchronized (this) {
+			pitches = nextPitches;
+			range = nextRange;
+		}
+		if (pitches == null) {
+			return;
 		}
 		
-		// can't find one? make a new one. can't make one? get out.
-		if (voice == null && (voice = addVoice()) == null) {
+		// skip the rebuild if the range hasn't changed
+		ToneSet live = toneSet;
+		if (live != null && live.range.equals(range)) {
 			return;
 		}
 		
-		// set up the track with buffer, loop points
-		short[] buffer = tones[tone].buffer;
-		voice.track.write(buffer, 0, buffer.length);
-		voice.track.setLoopPoints(0, buffer.length - 1, -1);
-		voice.track.setPlaybackRate(tones[tone].rate);
-		// set voice state 
-		voice.tone = tone;
-		voice.volume = MinVolume;
-		voice.state = Attack;
-		// and start playing it
-		voice.track.play();
+		ToneSet set = new ToneSet();
+		set.range = range;
+		set.tones = new Tone[pitches.length];
+		for (int t = 0; t < pitches.length; t++) {
+			Tone tone = new Tone();
+			// oscillator steps through the instrument
+			// waveform cycle at the tone frequency
+			tone.increment = pitches[t] / sampleRate;
+			// and reads the band-limited table for its pitch
+			tone.band = Wavetable.getBand(pitches[t]);
+			set.tones[t] = tone;
+		}
+		
+		// swap it in; sounding voices keep their old pitches
+		toneSet = set;
 	}
 	
+	/**
+	 * play a single tone, stealing a voice
+	 * if all of them are in use
+	 * (UI thread only, it feeds the event queue)
+	 */
+	public void playTone(int tone) {
+		playTone(tone, SystemClock.uptimeMillis());
+	}
 	
 	/**
-	 * stop playing the indicated tone
+	 * play a single tone requested at a given uptime, 
+	 * such as a touch event time, for latency measurement
+	 * (UI thread only, it feeds the event queue)
 	 */
-	public void stopTone(int tone) {
-		Voice voice = null;
-
-		// find the voice playing this tone
-		for (int i = 0; i < voices.size();  i++) {
-			Voice v = voices.get(i);
-			if (v.tone == tone && v.state != Release) {
-				voice = v;
-				break;
-			}
-		}
-		
-		if (voice == null) {
+	public void playTone(int tone, long time) {
+		// instruments or tone set may still be building, 
+		// or the set may predate a change to the range or scale
+		ToneSet set = toneSet;
+		if (!ready || set == null || tone >= set.tones.length) {
 			return;
 		}
 		
-		voice.state = Release;
+		// the renderer starts it at the next block; a
+		// refused note-on is dropped, as it would be late
+		if (engine.noteOn(tone, set.tones[tone].increment, set.tones[tone].band, time)) {
+			// a note-off still waiting would cut the new note short
+			NoteOffRetry retry = retries.remove(tone);
+			if (retry != null) {
+				main.removeCallbacks(retry);
+			}
+		}
 	}
-
+	
+	/**
+	 * stop playing the indicated tone
+	 * (UI thread only, it feeds the event queue)
+	 */
+	public void stopTone(int tone) {
+		// a lost note-off would leave the tone sounding
+		// until its voice is stolen, so try again shortly
+		if (ready && !engine.noteOff(tone) && !retries.containsKey(tone)) {
+			NoteOffRetry retry = new NoteOffRetry();
+			retry.tone = tone;
+			retries.put(tone, retry);
+			main.postDelayed(retry, RetryDelay);
+		}
+	}
+	
+	/**
+	 * set voice stealing policy
+	 */
+	public void setStealPolicy(int policy) {
+		engine.setStealPolicy(policy);
+	}
+	
+	/**
+	 * get note-on to first sample latency histogram
+	 */
+	public LatencyMeter getLatency() {
+		return engine.getLatency();
+	}
+	
+	/**
+	 * get render time, underrun and voice counters
+	 */
+	public Metrics getMetrics() {
+		return engine.getMetrics();
+	}
+	
+	/**
+	 * write render and latency counters to a file
+	 * NOTE: requires write external storage permission
+	 */
+	public void dumpMetrics(String filename) {
+		writeFile("block=" + engine.getBlockLen() + " buffer=" + getBufferFrames() + "\n" + 
+				getMetrics() + "\n" + getLatency().dump(), filename);
+	}
+	
 	/**
 	 * release audio resources
 	 */
 	public void release() {
-		for (int i = 0; i < voices.size(); i++) {
-			voices.get(i).track.release();
+		released = true;
+		builder.quit();
+		renderer.stop();
+		try {
+			renderer.thread.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
 		}
+		sink.close();
 	}
 	
 	/**
@@ -269,6 +420,7 @@ public class Synthesizer {
 	 */
 	public void makeLouder() {
 		maxVolume = Math.min(1, maxVolume * 1.5f);
+		engine.setVolume(maxVolume);
 	}
 
 	/**
@@ -276,6 +428,7 @@ public class Synthesizer {
 	 */
 	public void makeSofter() {
 		maxVolume = Math.max(MinVolume, maxVolume * 0.667f);
+		engine.setVolume(maxVolume);
 	}
 	
 	/**
@@ -290,30 +443,9 @@ public class Synthesizer {
 	 */
 	public void restore(Bundle state) {
 		maxVolume = state.getFloat("maxVolume");
+		engine.setVolume(maxVolume);
 	}
 
-	/**
-	 * add a voice to the list
-	 */
-	Voice addVoice() {
-		Voice voice = new Voice();
-		voice.track = new AudioTrack(
-				AudioManager.STREAM_MUSIC,
-				sampleRate,
-				AudioFormat.CHANNEL_OUT_MONO,
-				AudioFormat.ENCODING_PCM_16BIT,
-				2048,
-				AudioTrack.MODE_STATIC);
-		if (voice.track.getState() == AudioTrack.STATE_UNINITIALIZED) {
-			voice = null;
-		} else {
-			voice.track.setStereoVolume(1, 1);
-			voice.tone = -1;
-			voices.add(voice);
-		}
-		return voice;
-	}
-	
 	/**
 	 * debugging tool
 	 * NOTE: requires write external storage permission
@@ -323,6 +455,14 @@ public class Synthesizer {
 		for (int i = 0; i < buffer.length; i++) {
 			sb.append(buffer[i]).append('\n');
 		}
+		writeFile(sb.toString(), filename);
+	}
+	
+	/**
+	 * write text to a file in the shared app directory
+	 * NOTE: requires write external storage permission
+	 */
+	void writeFile(String text, String filename) {
 		File sharedDir = Environment.getExternalStorageDirectory();
 		File dir = new File(sharedDir, "Android/data/com.wordsaretoys.mtx");
 		if (!dir.isDirectory()) {
@@ -332,7 +472,7 @@ public class Synthesizer {
 		try {
 			FileWriter fw = new FileWriter(file);
 			BufferedWriter bw = new BufferedWriter(fw);
-			bw.write(sb.toString());
+			bw.write(text);
 			bw.close();
 		} catch (Exception e) {
 			e.printStackTrace();
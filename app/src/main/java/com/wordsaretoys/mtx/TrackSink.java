@@ -0,0 +1,131 @@
+package com.wordsaretoys.mtx;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+/**
+ * streams blocks into a low-latency output track
+ * write() blocks until the track can take the next
+ * block, which keeps the render loop in step
+ */
+public class TrackSink implements Sink {
+
+	// track buffer size limits, in render blocks
+	static int MinBlocks = 2;
+	static int MaxBlocks = 8;
+	
+	// if true, the track buffer grows by a block after
+	// UnderrunLimit underruns within UnderrunWindow ms,
+	// trading latency for stability
+	static boolean AdaptiveBuffer = true;
+	static int UnderrunLimit = 3;
+	static int UnderrunWindow = 2000;
+	
+	// output format
+	int sampleRate;
+	int blockLen;
+	
+	// streaming output track
+	AudioTrack track;
+	
+	// track buffer size, in render blocks
+	volatile int bufferBlocks;
+	
+	// frames written to the current track
+	long written;
+	
+	// underruns in the current window, and blocks
+	// written since the window opened on the first one
+	int underruns;
+	int windowBlocks;
+	
+	// window length, in blocks
+	int windowLen;
+	
+	// true if the last write found the track empty
+	boolean underrun;
+	
+	/**
+	 * ctor, opens and starts the track
+	 */
+	public TrackSink(int sampleRate, int blockLen) {
+		this.sampleRate = sampleRate;
+		this.blockLen = blockLen;
+		// start at the platform minimum in whole blocks, so
+		// every block added really grows the track
+		int minBytes = AudioTrack.getMinBufferSize(
+				sampleRate, 
+				AudioFormat.CHANNEL_OUT_MONO, 
+				AudioFormat.ENCODING_PCM_16BIT);
+		int blockBytes = blockLen * 2;
+		bufferBlocks = Math.max(MinBlocks, (minBytes + blockBytes - 1) / blockBytes);
+		windowLen = Math.max(1, UnderrunWindow * sampleRate / 1000 / blockLen);
+		open();
+	}
+	
+	/**
+	 * (re)create the output track with a buffer of 
+	 * bufferBlocks render blocks, and start it playing
+	 */
+	void open() {
+		if (track != null) {
+			track.stop();
+			track.release();
+		}
+		track = new AudioTrack(
+				AudioManager.STREAM_MUSIC,
+				sampleRate,
+				AudioFormat.CHANNEL_OUT_MONO,
+				AudioFormat.ENCODING_PCM_16BIT,
+				blockLen * 2 * bufferBlocks,
+				AudioTrack.MODE_STREAM);
+		track.play();
+		written = 0;
+		underruns = 0;
+		windowBlocks = 0;
+	}
+	
+	@Override
+	public void write(short[] block, int count) {
+		// a window that passes without enough
+		// underruns to grow the buffer is forgotten
+		if (underruns > 0 && ++windowBlocks >= windowLen) {
+			underruns = 0;
+			windowBlocks = 0;
+		}
+		// nothing queued means the track ran dry
+		underrun = written > 0 && getPending() == 0;
+		if (underrun && AdaptiveBuffer && 
+				++underruns >= UnderrunLimit && bufferBlocks < MaxBlocks) {
+			bufferBlocks++;
+			open();
+		}
+		track.write(block, 0, count);
+		written += count;
+	}
+	
+	@Override
+	public long getPending() {
+		long head = track.getPlaybackHeadPosition() & 0xffffffffL;
+		return Math.max(0, written - head);
+	}
+	
+	@Override
+	public boolean hasUnderrun() {
+		return underrun;
+	}
+	
+	/**
+	 * get track buffer size, in frames
+	 */
+	public int getBufferFrames() {
+		return blockLen * bufferBlocks;
+	}
+	
+	@Override
+	public void close() {
+		track.stop();
+		track.release();
+	}
+}
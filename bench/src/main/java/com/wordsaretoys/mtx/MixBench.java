@@ -0,0 +1,78 @@
+package com.wordsaretoys.mtx;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * engine block rendering with a number of held voices,
+ * tuned to the lowest tones of a scale, both bare and
+ * through the production render loop into a null sink
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixBench {
+
+	static int SampleRate = 44100;
+	
+	@Param({"1", "2", "4", "8", "16"})
+	int voices;
+	
+	@Param({"5", "12", "31", "311"})
+	int tones;
+	
+	Engine engine;
+	short[] block;
+	Player player;
+	
+	@Setup
+	public void setup() {
+		int[] steps = new int[tones];
+		for (int i = 0; i < tones; i++) {
+			steps[i] = 1;
+		}
+		float[] pitches = Tuning.getPitches(steps, null);
+		int base = tones * 3;
+		
+		Wavetable wavetable = new Wavetable(Lookup.VoiceSource[0], SampleRate);
+		engine = new Engine(SampleRate);
+		engine.addTimbre(wavetable, Lookup.VoiceAttack[0], Lookup.VoiceDecay[0], 
+				Lookup.VoiceSustain[0], Lookup.VoiceRelease[0]);
+		for (int v = 0; v < voices; v++) {
+			float freq = pitches[base + v];
+			engine.noteOn(base + v, freq / SampleRate, Wavetable.getBand(freq), -1);
+		}
+		block = new short[Engine.BlockLen];
+		// get every voice through its attack
+		for (int i = 0; i < 100; i++) {
+			engine.render(block);
+		}
+		player = new Player("bench", engine, new NullSink());
+	}
+	
+	@Benchmark
+	public short[] render() {
+		engine.render(block);
+		return block;
+	}
+	
+	@Benchmark
+	public void play() throws IOException {
+		player.renderBlock();
+	}
+}
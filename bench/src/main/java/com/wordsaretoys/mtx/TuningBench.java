@@ -0,0 +1,63 @@
+package com.wordsaretoys.mtx;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * pitch generation and interval parsing,
+ * over scales from pentatonic to 311-tone
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TuningBench {
+
+	@Param({"5", "12", "19", "31", "53", "72", "311"})
+	int tones;
+	
+	int[] steps;
+	float[] pitches;
+	String text;
+	
+	@Setup
+	public void setup() {
+		// mixed intervals, as a stored scale would have
+		Random random = new Random(tones);
+		steps = new int[tones];
+		for (int i = 0; i < tones; i++) {
+			steps[i] = 1 + random.nextInt(3);
+		}
+		pitches = Tuning.getPitches(steps, null);
+		text = Tuning.formatSteps(steps);
+	}
+	
+	@Benchmark
+	public float[] generatePitches() {
+		return Tuning.getPitches(steps, pitches);
+	}
+	
+	@Benchmark
+	public int[] parseSteps() {
+		return Tuning.parseSteps(text);
+	}
+	
+	@Benchmark
+	public String formatSteps() {
+		return Tuning.formatSteps(steps);
+	}
+}
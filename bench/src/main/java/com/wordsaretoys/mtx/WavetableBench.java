@@ -0,0 +1,50 @@
+package com.wordsaretoys.mtx;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * wavetable generation for each lookup voice,
+ * all bands at once and a single band
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WavetableBench {
+
+	static int SampleRate = 44100;
+	
+	@Param({"0", "1", "2", "3", "4", "5", "6"})
+	int voice;
+	
+	Wavetable wavetable;
+	
+	@Setup
+	public void setup() {
+		wavetable = new Wavetable(Lookup.VoiceSource[voice], SampleRate);
+	}
+	
+	@Benchmark
+	public Wavetable renderAll() {
+		return new Wavetable(Lookup.VoiceSource[voice], SampleRate);
+	}
+	
+	@Benchmark
+	public short[] renderBand() {
+		return wavetable.render(wavetable.counts[Wavetable.getBand(440)]);
+	}
+}
@@ -0,0 +1,760 @@
+package com.wordsaretoys.mtx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * mixes a fixed pool of wavetable voices into blocks
+ * of 16-bit samples; knows nothing about where the
+ * blocks go, so it runs the same live or offline
+ */
+public class Engine {
+	
+	// default samples per render block
+	static int BlockLen = 256;
+	
+	// maximum simultaneous voices
+	static int Polyphony = 16;
+	
+	// extra voices that stolen voices fade out in
+	static int Spares = 4;
+	
+	// time constant for gain changes, ms
+	static float SmoothTime = 2;
+	
+	// time sounding voices take to move to a new timbre, ms
+	static float CrossfadeTime = 20;
+	
+	// note event queue capacity
+	static int QueueLen = 256;
+	
+	// voice stealing policies
+	final static int StealOldest = 0;
+	final static int StealQuietest = 1;
+	
+	// fixed-point phase: the top bits index the table,
+	// the rest are the fraction between entries
+	final static int PhaseShift = 32 - Wavetable.TableBits;
+	final static int FracMask = (1 << PhaseShift) - 1;
+	final static float FracScale = 1f / (1 << PhaseShift);
+	
+	// envelope states
+	final static int Attack = 0;
+	final static int Decay = 1;
+	final static int Sustain = 2;
+	final static int Release = 3;
+	
+	// attack heads for this multiple of full scale, so its
+	// curve stays steep up to the top instead of flattening
+	static double AttackTarget = 1.3;
+	
+	// decay heads this far below sustain, so it gets there
+	static double DecayOvershoot = 0.001;
+	
+	// level at which a release ends, -80dB
+	static float ReleaseFloor = 0.0001f;
+	
+	/**
+	 * voice object
+	 */
+	class Voice {
+		// waveform table and wavetable band
+		short[] table;
+		int band;
+		// table being crossfaded to, or null
+		short[] next;
+		// crossfade position, 0..1
+		float fade;
+		// oscillator phase, in 1/2^32 cycles
+		int phase;
+		// phase increment per output sample
+		int increment;
+		// envelope level
+		float level;
+		// timbre whose envelope the voice follows,
+		// kept from note-on through timbre switches
+		Timbre timbre;
+		// smoothed gain and the gain it's heading for;
+		// zero target means the voice is fading out
+		float gain, gainTarget;
+		// tone index
+		int tone;
+		// envelope state
+		int state;
+		// index within the pool
+		int index;
+		// note-on count when started
+		long serial;
+	}
+	
+	/**
+	 * instrument timbre object, a fully rendered
+	 * wavetable and an envelope
+	 * 
+	 * each envelope segment runs level = level * coef + base
+	 * per sample, heading exponentially for base / (1 - coef)
+	 */
+	class Timbre {
+		// sample tables, indexed by band
+		short[][] tables;
+		// attack, decay and release times, ms
+		float attack, decay, release;
+		// sustain level, 0..1
+		float sustain;
+		// per-sample segment coefficients
+		float attackCoef, attackBase;
+		float decayCoef, decayBase;
+		float releaseCoef;
+	}
+	
+	// output sample rate
+	int sampleRate;
+	
+	// float mix bus
+	float[] mix;
+	
+	// per-voice oscillator and envelope blocks
+	float[] osc;
+	float[] env;
+	
+	// keeps dense chords from clipping
+	Limiter limiter;
+	
+	// fixed pool of voices
+	Voice[] voices;
+	
+	// stack of free voice indexes
+	int[] free;
+	int freeCount;
+	
+	// index of the voice holding each tone, or -1
+	int[] held;
+	
+	// tones the renderer's index has room for, as 
+	// last sent to it (producer thread only)
+	int heldLen;
+	
+	// how to pick a voice when none are free
+	volatile int stealPolicy = StealOldest;
+	
+	// note events from the producer to the renderer
+	EventQueue events;
+	
+	// note-on counter
+	long serial;
+	
+	// instruments that can be switched between
+	ArrayList<Timbre> timbres;
+	
+	// current instrument, null until one is added
+	Timbre timbre;
+	
+	// crossfade position change per sample
+	float fadeStep;
+	
+	// output volume, as set
+	volatile float volume;
+	
+	// bus gain, smoothed toward the volume
+	float busGain;
+	
+	// per-sample smoothing coefficient
+	float smoothCoef;
+	
+	// frames rendered so far
+	long frame;
+	
+	// time the next block will be heard, or -1 if unknown
+	long outputTime = -1;
+	
+	// note-on to first sample latencies
+	LatencyMeter latency;
+	
+	// render time and voice counters
+	Metrics metrics;
+	
+	// time available to render one block, ns
+	long deadline;
+	
+	/**
+	 * ctor, renders blocks of the default length
+	 */
+	public Engine(int sampleRate) {
+		this(sampleRate, BlockLen);
+	}
+	
+	/**
+	 * ctor, renders blocks of the given length
+	 */
+	public Engine(int sampleRate, int blockLen) {
+		this.sampleRate = sampleRate;
+		int count = Polyphony + Spares;
+		voices = new Voice[count];
+		free = new int[count];
+		for (int i = 0; i < count; i++) {
+			voices[i] = new Voice();
+			voices[i].index = i;
+			voices[i].tone = -1;
+			free[i] = count - 1 - i;
+		}
+		freeCount = count;
+		held = new int[128];
+		Arrays.fill(held, -1);
+		heldLen = held.length;
+		events = new EventQueue(QueueLen);
+		timbres = new ArrayList<Timbre>();
+		fadeStep = 1000f / (CrossfadeTime * sampleRate);
+		mix = new float[blockLen];
+		osc = new float[blockLen];
+		env = new float[blockLen];
+		limiter = new Limiter(sampleRate);
+		volume = 1;
+		busGain = volume / 32768f;
+		smoothCoef = (float) (1 - Math.exp(-1000 / (SmoothTime * sampleRate)));
+		latency = new LatencyMeter();
+		metrics = new Metrics();
+		deadline = blockLen * 1000000000L / sampleRate;
+	}
+	
+	/**
+	 * add an instrument, returning its index for setTimbre()
+	 * the first one added is current; all should be added
+	 * before rendering starts, as every band of the wavetable
+	 * is rendered here so switching never has to wait
+	 * 
+	 * attack, decay and release times are in milliseconds;
+	 * attack runs from silence to full scale, decay from full
+	 * scale to the sustain level, release from full scale 
+	 * to -80dB (sooner from lower levels)
+	 */
+	public int addTimbre(Wavetable wavetable, 
+			float attack, float decay, float sustain, float release) {
+		Timbre timbre = new Timbre();
+		timbre.tables = new short[Wavetable.BandCount][];
+		for (int b = 0; b < Wavetable.BandCount; b++) {
+			timbre.tables[b] = wavetable.getTable(b);
+		}
+		timbre.attack = attack;
+		timbre.decay = decay;
+		timbre.sustain = sustain;
+		timbre.release = release;
+		
+		double a = AttackTarget;
+		timbre.attackCoef = getCoef(attack, (a - 1) / a);
+		timbre.attackBase = (float) (a * (1 - timbre.attackCoef));
+		
+		double d = sustain - DecayOvershoot;
+		timbre.decayCoef = getCoef(decay, DecayOvershoot / (1 - d));
+		timbre.decayBase = (float) (d * (1 - timbre.decayCoef));
+		
+		timbre.releaseCoef = getCoef(release, ReleaseFloor);
+		
+		timbres.add(timbre);
+		if (this.timbre == null) {
+			this.timbre = timbre;
+		}
+		return timbres.size() - 1;
+	}
+	
+	/**
+	 * queue a switch to another instrument at the next block;
+	 * sounding voices crossfade to its waveform
+	 * returns false if there's no such instrument, 
+	 * or if the event queue is full
+	 * (producer thread only)
+	 */
+	public boolean setTimbre(int index) {
+		if (index < 0 || index >= timbres.size()) {
+			return false;
+		}
+		return post(EventQueue.Timbre, index, 0, 0, -1, null);
+	}
+	
+	/**
+	 * get the per-sample multiplier that shrinks the distance
+	 * to a segment's target by the given ratio in time ms
+	 */
+	float getCoef(float time, double ratio) {
+		double samples = Math.max(1, time * sampleRate / 1000);
+		return (float) Math.exp(Math.log(ratio) / samples);
+	}
+	
+	/**
+	 * set output volume, 0..1
+	 * changes are smoothed over a few ms by the renderer
+	 */
+	public void setVolume(float v) {
+		volume = v;
+	}
+	
+	/**
+	 * set voice stealing policy
+	 */
+	public void setStealPolicy(int policy) {
+		stealPolicy = policy;
+	}
+	
+	/**
+	 * queue a tone to start at the next block, reading the
+	 * given band of the current timbre at the given phase
+	 * increment;
+	 * time is when the note was asked for, on the same 
+	 * clock as setOutputTime(), or -1 if not measured;
+	 * tones past the renderer's index reserve room first;
+	 * returns false if the event queue is full
+	 * (producer thread only)
+	 */
+	public boolean noteOn(int tone, float increment, int band, long time) {
+		if (tone >= heldLen && !reserveTones(tone + 1)) {
+			return false;
+		}
+		return post(EventQueue.NoteOn, tone, increment, band, time, null);
+	}
+	
+	/**
+	 * make room for at least count tones in the renderer's
+	 * tone index; the larger index is allocated here and
+	 * handed over through the event queue, so the render 
+	 * thread never allocates; note-ons call this as needed
+	 * returns false if the event queue is full
+	 * (producer thread only)
+	 */
+	public boolean reserveTones(int count) {
+		if (count <= heldLen) {
+			return true;
+		}
+		int[] index = new int[Math.max(count, heldLen * 2)];
+		Arrays.fill(index, -1);
+		if (!post(EventQueue.Tones, 0, 0, 0, -1, index)) {
+			return false;
+		}
+		heldLen = index.length;
+		return true;
+	}
+	
+	/**
+	 * queue a tone to be released at the next block
+	 * returns false if the event queue is full
+	 * (producer thread only)
+	 */
+	public boolean noteOff(int tone) {
+		return post(EventQueue.NoteOff, tone, 0, 0, -1, null);
+	}
+	
+	/**
+	 * queue an event, counting it if the queue is full
+	 * (producer thread only)
+	 */
+	boolean post(int type, int tone, float increment, int band, long time, 
+			int[] array) {
+		if (events.put(type, tone, increment, band, time, array)) {
+			return true;
+		}
+		metrics.recordDropped();
+		return false;
+	}
+	
+	/**
+	 * set the time at which the first sample of the
+	 * next block will be heard, so note latencies can
+	 * be measured (render thread only)
+	 */
+	public void setOutputTime(long time) {
+		outputTime = time;
+	}
+	
+	/**
+	 * get samples per render block
+	 */
+	public int getBlockLen() {
+		return mix.length;
+	}
+	
+	/**
+	 * get number of frames rendered so far
+	 * (render thread only)
+	 */
+	public long getFrame() {
+		return frame;
+	}
+	
+	/**
+	 * get note latency histogram
+	 */
+	public LatencyMeter getLatency() {
+		return latency;
+	}
+	
+	/**
+	 * get render time and voice counters
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * get number of voices in use
+	 * (render thread only)
+	 */
+	public int getActiveVoices() {
+		return voices.length - freeCount;
+	}
+	
+	/**
+	 * apply pending note events to the voice pool
+	 * voices are only ever touched by the renderer
+	 */
+	void drainEvents() {
+		while (events.poll()) {
+			switch (events.type) {
+			case EventQueue.NoteOn:
+				startVoice(events.tone, events.increment, events.band);
+				// its first sample goes out at the start of this block
+				if (events.time >= 0 && outputTime >= 0) {
+					latency.record(outputTime - events.time);
+				}
+				break;
+			
+			case EventQueue.NoteOff:
+				releaseVoice(events.tone);
+				break;
+			
+			case EventQueue.Timbre:
+				switchTimbre(timbres.get(events.tone));
+				break;
+			
+			case EventQueue.Tones:
+				growHeld(events.array);
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * start a voice on a tone
+	 */
+	void startVoice(int tone, float increment, int band) {
+		// a tone only sounds once at a time; the index
+		// was grown by an earlier event if need be
+		if (held[tone] != -1) {
+			voices[held[tone]].state = Release;
+		}
+		
+		Voice voice = allocVoice();
+		held[tone] = voice.index;
+		voice.serial = ++serial;
+		
+		// point the voice at the instrument waveform
+		voice.table = timbre.tables[band];
+		voice.band = band;
+		voice.next = null;
+		voice.phase = 0;
+		// cycles to fixed point; increments stay under 1/2
+		voice.increment = (int) (long) (increment * 4294967296.0);
+		voice.tone = tone;
+		voice.level = 0;
+		voice.state = Attack;
+		voice.timbre = timbre;
+		voice.gain = 1;
+		voice.gainTarget = 1;
+	}
+	
+	/**
+	 * move the tone index into a larger one sent by
+	 * the producer, already filled with -1
+	 */
+	void growHeld(int[] index) {
+		System.arraycopy(held, 0, index, 0, held.length);
+		held = index;
+	}
+	
+	/**
+	 * make an instrument current, starting sounding
+	 * voices on a crossfade to its waveform; they keep
+	 * the envelope they started with, so levels never jump
+	 */
+	void switchTimbre(Timbre t) {
+		timbre = t;
+		for (int i = 0; i < voices.length; i++) {
+			Voice voice = voices[i];
+			if (voice.tone == -1) {
+				continue;
+			}
+			short[] table = t.tables[voice.band];
+			if (voice.next == null) {
+				voice.next = table;
+				voice.fade = 0;
+			} else if (table == voice.table) {
+				// switched back mid-fade, run it in reverse
+				voice.table = voice.next;
+				voice.next = table;
+				voice.fade = 1 - voice.fade;
+			} else {
+				// a third waveform takes over the incoming share
+				voice.next = table;
+			}
+		}
+	}
+	
+	/**
+	 * release the voice on a tone
+	 */
+	void releaseVoice(int tone) {
+		if (tone < held.length && held[tone] != -1) {
+			voices[held[tone]].state = Release;
+			held[tone] = -1;
+		}
+	}
+	
+	/**
+	 * get a free voice, or steal one according to policy
+	 * 
+	 * the last few free voices are spares: a stolen voice
+	 * fades out while the new note starts on a spare, so
+	 * stealing doesn't click unless the spares run out
+	 */
+	Voice allocVoice() {
+		if (freeCount > Spares) {
+			return voices[free[--freeCount]];
+		}
+		
+		Voice victim = findVictim(false);
+		if (victim != null) {
+			unholdVoice(victim);
+			victim.gainTarget = 0;
+		}
+		if (freeCount > 0) {
+			return voices[free[--freeCount]];
+		}
+		// no spares left, cut a voice off
+		if (victim == null) {
+			victim = findVictim(true);
+		}
+		unholdVoice(victim);
+		return victim;
+	}
+	
+	/**
+	 * pick a voice in use to steal according to policy,
+	 * from those fading out or those that aren't
+	 * returns null if there are none
+	 */
+	Voice findVictim(boolean fading) {
+		Voice victim = null;
+		for (int i = 0; i < voices.length; i++) {
+			Voice v = voices[i];
+			if (v.tone == -1 || (v.gainTarget == 0) != fading) {
+				continue;
+			}
+			if (victim == null || (stealPolicy == StealQuietest ?
+					v.level * v.gain < victim.level * victim.gain : 
+					v.serial < victim.serial)) {
+				victim = v;
+			}
+		}
+		return victim;
+	}
+	
+	/**
+	 * return a finished voice to the free stack
+	 */
+	void freeVoice(Voice voice) {
+		unholdVoice(voice);
+		voice.tone = -1;
+		free[freeCount++] = voice.index;
+	}
+	
+	/**
+	 * remove a voice from the tone index, if it's there
+	 */
+	void unholdVoice(Voice voice) {
+		if (voice.tone != -1 && held[voice.tone] == voice.index) {
+			held[voice.tone] = -1;
+		}
+	}
+	
+	/**
+	 * mix all active voices into a single block
+	 * 
+	 * each voice runs as separate oscillator, envelope 
+	 * and mix passes over whole blocks, keeping branches
+	 * out of the per-sample loops
+	 */
+	public void render(short[] block) {
+		long start = System.nanoTime();
+		drainEvents();
+		int active = getActiveVoices();
+		Arrays.fill(mix, 0);
+		for (int v = 0; v < voices.length; v++) {
+			Voice voice = voices[v];
+			if (voice.tone == -1) {
+				continue;
+			}
+			if (voice.next == null) {
+				oscillate(voice, osc);
+			} else {
+				crossfade(voice, osc);
+			}
+			boolean done = envelope(voice, env);
+			if (voice.gain != voice.gainTarget && smoothGain(voice, env)) {
+				done = true;
+			}
+			for (int i = 0; i < mix.length; i++) {
+				mix[i] += osc[i] * env[i];
+			}
+			if (done) {
+				freeVoice(voice);
+			}
+		}
+		// tables hold 16-bit samples, bus is full scale = 1
+		float target = volume / 32768f;
+		float gain = busGain;
+		for (int i = 0; i < mix.length; i++) {
+			gain += (target - gain) * smoothCoef;
+			mix[i] *= gain;
+		}
+		busGain = gain;
+		// limit the bus and convert to 16 bits
+		limiter.process(mix, block, mix.length);
+		frame += mix.length;
+		metrics.recordBlock(System.nanoTime() - start, deadline, active);
+	}
+	
+	/**
+	 * fill a block with a voice's waveform,
+	 * interpolating between neighboring samples
+	 */
+	void oscillate(Voice voice, float[] out) {
+		short[] table = voice.table;
+		int phase = voice.phase;
+		int increment = voice.increment;
+		for (int i = 0; i < out.length; i++) {
+			// phase wraps by integer overflow
+			int i0 = phase >>> PhaseShift;
+			float s = table[i0];
+			out[i] = s + (table[(i0 + 1) & Wavetable.TableMod] - s) * 
+					((phase & FracMask) * FracScale);
+			phase += increment;
+		}
+		voice.phase = phase;
+	}
+	
+	/**
+	 * ease a voice's gain toward its target, applying it 
+	 * to the voice's envelope block; returns true once a
+	 * voice fading out can no longer be heard
+	 */
+	boolean smoothGain(Voice voice, float[] out) {
+		float gain = voice.gain;
+		float target = voice.gainTarget;
+		for (int i = 0; i < out.length; i++) {
+			gain += (target - gain) * smoothCoef;
+			out[i] *= gain;
+		}
+		// a one-pole never quite gets there
+		if (Math.abs(target - gain) < ReleaseFloor) {
+			gain = target;
+		}
+		voice.gain = gain;
+		return gain == 0;
+	}
+	
+	/**
+	 * fill a block with a voice's waveform while fading
+	 * from its old table to its new one
+	 */
+	void crossfade(Voice voice, float[] out) {
+		short[] table = voice.table;
+		short[] next = voice.next;
+		int phase = voice.phase;
+		int increment = voice.increment;
+		float fade = voice.fade;
+		for (int i = 0; i < out.length; i++) {
+			int i0 = phase >>> PhaseShift;
+			int i1 = (i0 + 1) & Wavetable.TableMod;
+			float x = (phase & FracMask) * FracScale;
+			float s = table[i0];
+			s += (table[i1] - s) * x;
+			float n = next[i0];
+			n += (next[i1] - n) * x;
+			fade = Math.min(1, fade + fadeStep);
+			out[i] = s + (n - s) * fade;
+			phase += increment;
+		}
+		voice.phase = phase;
+		voice.fade = fade;
+		if (fade == 1) {
+			voice.table = next;
+			voice.next = null;
+		}
+	}
+	
+	/**
+	 * fill a block with a voice's envelope levels
+	 * segment ends are found once per segment, so each
+	 * run of samples is a plain multiply-add or fill
+	 * returns true if the voice has finished
+	 */
+	boolean envelope(Voice voice, float[] out) {
+		Timbre timbre = voice.timbre;
+		float level = voice.level;
+		int i = 0;
+		while (i < out.length) {
+			float coef, base, end;
+			switch (voice.state) {
+			case Attack:
+				coef = timbre.attackCoef;
+				base = timbre.attackBase;
+				end = 1;
+				break;
+			
+			case Decay:
+				coef = timbre.decayCoef;
+				base = timbre.decayBase;
+				end = timbre.sustain;
+				break;
+			
+			case Release:
+				coef = timbre.releaseCoef;
+				base = 0;
+				end = ReleaseFloor;
+				break;
+			
+			default:
+				Arrays.fill(out, i, out.length, level);
+				i = out.length;
+				continue;
+			}
+			
+			int n = i + Math.min(out.length - i, getSteps(level, coef, base, end));
+			for (; i < n; i++) {
+				level = level * coef + base;
+				out[i] = level;
+			}
+			if (i < out.length) {
+				// segment is done, move to the next
+				level = end;
+				if (voice.state == Release) {
+					Arrays.fill(out, i, out.length, 0);
+					voice.level = 0;
+					return true;
+				}
+				voice.state = voice.state == Attack ? Decay : Sustain;
+			}
+		}
+		voice.level = level;
+		return false;
+	}
+	
+	/**
+	 * get whole samples a segment can run before
+	 * its level passes the segment's end
+	 */
+	static int getSteps(float level, float coef, float base, float end) {
+		// distance to the target shrinks by coef per sample
+		double target = base / (1.0 - coef);
+		double k = Math.log((end - target) / (level - target)) / Math.log(coef);
+		// NaN or negative if already past the end
+		return k > 0 ? (int) Math.min(k, Integer.MAX_VALUE) : 0;
+	}
+}
@@ -0,0 +1,100 @@
+package com.wordsaretoys.mtx;
+
+/**
+ * preallocated ring of note events passed from one 
+ * producer thread to one consumer thread, without locks
+ * 
+ * the producer calls put(), the consumer calls poll() 
+ * and reads the current event fields until the next poll 
+ */
+public class EventQueue {
+
+	// event types
+	final static int NoteOn = 0;
+	final static int NoteOff = 1;
+	// tone holds the timbre index
+	final static int Timbre = 2;
+	// array holds a larger tone index, prefilled
+	final static int Tones = 3;
+	
+	// event slots, capacity is a power of two
+	int[] types;
+	int[] tones;
+	float[] increments;
+	int[] bands;
+	long[] times;
+	int[][] arrays;
+	int mask;
+	
+	// next slot to write, owned by producer
+	volatile int head;
+	
+	// next slot to read, owned by consumer
+	volatile int tail;
+	
+	// current event, valid after poll() returns true
+	int type;
+	int tone;
+	float increment;
+	int band;
+	long time;
+	int[] array;
+	
+	/**
+	 * ctor, capacity is rounded up to a power of two
+	 */
+	public EventQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		types = new int[size];
+		tones = new int[size];
+		increments = new float[size];
+		bands = new int[size];
+		times = new long[size];
+		arrays = new int[size][];
+		mask = size - 1;
+	}
+	
+	/**
+	 * add an event; returns false if the queue is full
+	 * producer thread only
+	 */
+	public boolean put(int type, int tone, float increment, int band, long time, 
+			int[] array) {
+		int h = head;
+		if (h - tail == types.length) {
+			return false;
+		}
+		int i = h & mask;
+		types[i] = type;
+		tones[i] = tone;
+		increments[i] = increment;
+		bands[i] = band;
+		times[i] = time;
+		arrays[i] = array;
+		// publishes the slot to the consumer
+		head = h + 1;
+		return true;
+	}
+	
+	/**
+	 * take the next event into the current event fields;
+	 * returns false if the queue is empty
+	 * consumer thread only
+	 */
+	public boolean poll() {
+		int t = tail;
+		if (t == head) {
+			return false;
+		}
+		int i = t & mask;
+		type = types[i];
+		tone = tones[i];
+		increment = increments[i];
+		band = bands[i];
+		time = times[i];
+		array = arrays[i];
+		// hands the slot back to the producer
+		tail = t + 1;
+		return true;
+	}
+}
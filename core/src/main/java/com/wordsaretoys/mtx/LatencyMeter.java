@@ -0,0 +1,129 @@
+package com.wordsaretoys.mtx;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * lock-free histogram of note latencies in milliseconds
+ * recorded from the render thread, read from anywhere
+ */
+public class LatencyMeter {
+
+	// bucket width, ms
+	static int BucketWidth = 2;
+	
+	// number of buckets; the last one catches everything above
+	static int BucketCount = 128;
+	
+	// sample counts per bucket
+	AtomicIntegerArray buckets;
+	
+	// total count and sum of all samples
+	AtomicLong count, sum;
+	
+	// largest sample seen
+	AtomicLong max;
+	
+	/**
+	 * ctor
+	 */
+	public LatencyMeter() {
+		buckets = new AtomicIntegerArray(BucketCount);
+		count = new AtomicLong();
+		sum = new AtomicLong();
+		max = new AtomicLong();
+	}
+	
+	/**
+	 * record a latency sample
+	 */
+	public void record(long ms) {
+		ms = Math.max(0, ms);
+		int b = (int) Math.min(BucketCount - 1, ms / BucketWidth);
+		buckets.incrementAndGet(b);
+		count.incrementAndGet();
+		sum.addAndGet(ms);
+		long m;
+		while (ms > (m = max.get()) && !max.compareAndSet(m, ms));
+	}
+	
+	/**
+	 * get number of samples recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+	
+	/**
+	 * get mean latency, ms
+	 */
+	public float getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (float) sum.get() / n;
+	}
+	
+	/**
+	 * get largest latency, ms
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * get latency below which the given fraction (0..1)
+	 * of samples fall, to the nearest bucket, ms;
+	 * 0 if nothing has been recorded
+	 */
+	public int getPercentile(float p) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(p * n);
+		long seen = 0;
+		for (int b = 0; b < BucketCount; b++) {
+			seen += buckets.get(b);
+			if (seen >= target && seen > 0) {
+				return (b + 1) * BucketWidth;
+			}
+		}
+		return BucketCount * BucketWidth;
+	}
+	
+	/**
+	 * clear all samples
+	 */
+	public void reset() {
+		for (int b = 0; b < BucketCount; b++) {
+			buckets.set(b, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+	
+	/**
+	 * dump the histogram as text, one
+	 * "upper-bound-ms count" line per bucket in use
+	 */
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(toString()).append('\n');
+		for (int b = 0; b < BucketCount; b++) {
+			int c = buckets.get(b);
+			if (c > 0) {
+				sb.append((b + 1) * BucketWidth).append(' ').append(c).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return "latency n=" + getCount() + 
+				" mean=" + getMean() + 
+				" p50=" + getPercentile(0.5f) + 
+				" p95=" + getPercentile(0.95f) + 
+				" max=" + getMax();
+	}
+}
@@ -0,0 +1,78 @@
+package com.wordsaretoys.mtx;
+
+/**
+ * look-ahead peak limiter for the float mix bus
+ * 
+ * the signal is delayed by the look-ahead time, so the
+ * gain can ease down ahead of a peak instead of clipping
+ * it, then eases back up after; also converts to 16 bits
+ */
+public class Limiter {
+
+	// output ceiling, full scale = 1
+	static float Threshold = 0.9f;
+	
+	// look-ahead and release times, ms
+	static float LookAhead = 2f;
+	static float ReleaseTime = 100f;
+	
+	// look-ahead delay line
+	float[] delay;
+	int position;
+	
+	// peak envelope and current gain
+	float peak;
+	float gain = 1;
+	
+	// per-sample smoothing coefficients
+	float attackCoef, releaseCoef;
+	
+	/**
+	 * ctor
+	 */
+	public Limiter(int sampleRate) {
+		int length = Math.max(1, (int)(LookAhead * sampleRate / 1000));
+		delay = new float[length];
+		// gain gets ~95% of the way down within the look-ahead
+		attackCoef = (float)(1 - Math.exp(-3.0 / length));
+		releaseCoef = (float)(1 - Math.exp(-1000.0 / (ReleaseTime * sampleRate)));
+	}
+	
+	/**
+	 * limit a block of float samples and
+	 * convert them to 16 bits
+	 */
+	public void process(float[] in, short[] out, int frames) {
+		float[] delay = this.delay;
+		int position = this.position;
+		float peak = this.peak;
+		float gain = this.gain;
+		
+		for (int i = 0; i < frames; i++) {
+			float x = in[i];
+			
+			// peak envelope jumps up, decays at the release rate
+			float a = Math.abs(x);
+			peak = Math.max(a, peak - (peak - a) * releaseCoef);
+			
+			// move gain toward whatever keeps the peak under the ceiling
+			float target = peak > Threshold ? Threshold / peak : 1;
+			gain += (target - gain) * (target < gain ? attackCoef : releaseCoef);
+			
+			// apply it to the delayed signal
+			float y = delay[position] * gain;
+			delay[position] = x;
+			if (++position == delay.length) {
+				position = 0;
+			}
+			
+			// anything the gain didn't catch is clipped
+			y = Math.max(-1, Math.min(1, y));
+			out[i] = (short)(y * Short.MAX_VALUE);
+		}
+		
+		this.position = position;
+		this.peak = peak;
+		this.gain = gain;
+	}
+}
@@ -38,24 +38,48 @@ public class Lookup {
 		"Oomph"
 	};
 	
+	// envelope times in milliseconds
+	
 	static float[] VoiceAttack = {
-		0.05f,
-		0.1f,
-		0.1f,
-		0.05f,
-		0.1f,
-		0.01f,
-		0.01f
+		5f,
+		2.5f,
+		2.5f,
+		5f,
+		2.5f,
+		25f,
+		25f
+	};
+	
+	static float[] VoiceDecay = {
+		800f,
+		150f,
+		250f,
+		50f,
+		50f,
+		150f,
+		400f
+	};
+	
+	// sustain levels, 0..1
+	
+	static float[] VoiceSustain = {
+		0.3f,
+		0.8f,
+		0.9f,
+		1f,
+		1f,
+		0.7f,
+		0.5f
 	};
 	
 	static float[] VoiceRelease = {
-		0.01f,
-		0.1f,
-		0.1f,
-		0.001f,
-		0.001f,
-		0.1f,
-		0.001f
+		25f,
+		2.5f,
+		2.5f,
+		250f,
+		250f,
+		2.5f,
+		250f
 	};
 	
 	static float[][] VoiceSource = {
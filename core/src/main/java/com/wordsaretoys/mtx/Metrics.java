@@ -0,0 +1,144 @@
+package com.wordsaretoys.mtx;
+
+/**
+ * render thread health counters: time spent per block 
+ * against its deadline, underruns, voice count, and
+ * note events refused by a full queue
+ * 
+ * each counter has a single writing thread, and
+ * can be read anywhere
+ */
+public class Metrics {
+
+	// blocks rendered, and those over their deadline
+	volatile long blocks;
+	volatile long lateBlocks;
+	
+	// times the output ran dry before a write
+	volatile long underruns;
+	
+	// render time totals, ns
+	volatile long renderTime;
+	volatile long maxRenderTime;
+	
+	// time available per block, ns
+	volatile long deadline;
+	
+	// most voices in use at once
+	volatile int peakVoices;
+	
+	// events refused because the queue was full
+	volatile long dropped;
+	
+	/**
+	 * record one rendered block
+	 * (render thread only)
+	 */
+	public void recordBlock(long ns, long deadline, int voices) {
+		this.deadline = deadline;
+		blocks++;
+		if (ns > deadline) {
+			lateBlocks++;
+		}
+		renderTime += ns;
+		if (ns > maxRenderTime) {
+			maxRenderTime = ns;
+		}
+		if (voices > peakVoices) {
+			peakVoices = voices;
+		}
+	}
+	
+	/**
+	 * record an output underrun
+	 * (render thread only)
+	 */
+	public void recordUnderrun() {
+		underruns++;
+	}
+	
+	/**
+	 * record an event refused by a full queue
+	 * (producer thread only)
+	 */
+	public void recordDropped() {
+		dropped++;
+	}
+	
+	/**
+	 * get number of blocks rendered
+	 */
+	public long getBlocks() {
+		return blocks;
+	}
+	
+	/**
+	 * get number of blocks that took longer to
+	 * render than they take to play
+	 */
+	public long getLateBlocks() {
+		return lateBlocks;
+	}
+	
+	/**
+	 * get number of output underruns
+	 */
+	public long getUnderruns() {
+		return underruns;
+	}
+	
+	/**
+	 * get most voices sounding at once
+	 */
+	public int getPeakVoices() {
+		return peakVoices;
+	}
+	
+	/**
+	 * get number of events refused by a full queue
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+	
+	/**
+	 * get mean render time as a fraction of the deadline
+	 */
+	public float getMeanLoad() {
+		long n = blocks;
+		long d = deadline;
+		return (n == 0 || d == 0) ? 0 : (float) renderTime / n / d;
+	}
+	
+	/**
+	 * get worst render time as a fraction of the deadline
+	 */
+	public float getMaxLoad() {
+		long d = deadline;
+		return d == 0 ? 0 : (float) maxRenderTime / d;
+	}
+	
+	/**
+	 * clear all counters
+	 */
+	public void reset() {
+		blocks = 0;
+		lateBlocks = 0;
+		underruns = 0;
+		renderTime = 0;
+		maxRenderTime = 0;
+		peakVoices = 0;
+		dropped = 0;
+	}
+	
+	@Override
+	public String toString() {
+		return "blocks=" + getBlocks() +
+				" late=" + getLateBlocks() +
+				" underruns=" + getUnderruns() +
+				" load=" + getMeanLoad() +
+				" maxload=" + getMaxLoad() +
+				" peakvoices=" + getPeakVoices() +
+				" dropped=" + getDropped();
+	}
+}
@@ -58,8 +58,10 @@ public abstract class Needle implements Runnable {
 	protected boolean block(long time) {
 		try {
 			synchronized(this) {
-				// timed wait
-				wait(time);
+				// timed wait (zero means don't wait)
+				if (time > 0) {
+					wait(time);
+				}
 				// thread suspension check/wait
 				while(state == ThreadState.PAUSE) {
 					wait();
@@ -0,0 +1,36 @@
+package com.wordsaretoys.mtx;
+
+/**
+ * discards rendered blocks, counting their frames;
+ * for measuring the engine without any output cost
+ */
+public class NullSink implements Sink {
+
+	// frames written so far
+	long frames;
+	
+	@Override
+	public void write(short[] block, int count) {
+		frames += count;
+	}
+	
+	/**
+	 * get number of frames written
+	 */
+	public long getFrames() {
+		return frames;
+	}
+	
+	@Override
+	public long getPending() {
+		return 0;
+	}
+	
+	@Override
+	public boolean hasUnderrun() {
+		return false;
+	}
+	
+	@Override
+	public void close() {}
+}
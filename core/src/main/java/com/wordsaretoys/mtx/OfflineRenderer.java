@@ -0,0 +1,120 @@
+package com.wordsaretoys.mtx;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * renders a list of note events through the synth
+ * engine into a WAV file, as fast as the CPU allows
+ */
+public class OfflineRenderer {
+
+	// longest release tail rendered after the last event, ms
+	static int MaxTail = 5000;
+	
+	/**
+	 * note event
+	 */
+	public static class Note {
+		// time from start, ms
+		long time;
+		// tone index within the octave range
+		int tone;
+		// true to start the tone, false to stop it
+		boolean on;
+		
+		public Note(long time, int tone, boolean on) {
+			this.time = time;
+			this.tone = tone;
+			this.on = on;
+		}
+	}
+	
+	// output sample rate
+	int sampleRate;
+	
+	// tone frequencies
+	float[] pitches;
+	
+	// instrument
+	int voice;
+	Wavetable wavetable;
+	
+	/**
+	 * ctor, sets up tones at the given frequencies
+	 * (see Tuning.getRange) played by a lookup voice
+	 */
+	public OfflineRenderer(float[] pitches, int voice, int sampleRate) {
+		this.sampleRate = sampleRate;
+		this.voice = voice;
+		this.pitches = pitches;
+		wavetable = new Wavetable(Lookup.VoiceSource[voice], sampleRate);
+	}
+	
+	/**
+	 * render notes, which must be in time order, to a WAV file
+	 */
+	public void render(List<Note> notes, File file) throws IOException {
+		render(notes, new WavSink(file, sampleRate));
+	}
+	
+	/**
+	 * render notes, which must be in time order, to a sink,
+	 * closing it when done; events are quantized to the 
+	 * engine's block size, just as they are when playing live
+	 */
+	public void render(List<Note> notes, Sink sink) throws IOException {
+		Engine engine = new Engine(sampleRate);
+		engine.addTimbre(wavetable, Lookup.VoiceAttack[voice], Lookup.VoiceDecay[voice], 
+				Lookup.VoiceSustain[voice], Lookup.VoiceRelease[voice]);
+		short[] block = new short[Engine.BlockLen];
+		
+		try {
+			long frame = 0;
+			int n = 0;
+			while (n < notes.size()) {
+				// queue everything that starts within this block
+				long end = frame + block.length;
+				while (n < notes.size()) {
+					Note note = notes.get(n);
+					if (note.time * sampleRate / 1000 >= end) {
+						break;
+					}
+					if (!post(engine, note)) {
+						// queue is full, the rest go in the next block
+						break;
+					}
+					n++;
+				}
+				engine.render(block);
+				sink.write(block, block.length);
+				frame = end;
+			}
+			
+			// let the last releases ring out
+			long tail = (long) MaxTail * sampleRate / 1000;
+			for (long f = 0; f < tail && engine.getActiveVoices() > 0; f += block.length) {
+				engine.render(block);
+				sink.write(block, block.length);
+			}
+		} finally {
+			sink.close();
+		}
+	}
+	
+	/**
+	 * post a note event to the engine
+	 */
+	boolean post(Engine engine, Note note) {
+		if (note.tone < 0 || note.tone >= pitches.length) {
+			// nothing to play, drop it
+			return true;
+		}
+		if (note.on) {
+			float freq = pitches[note.tone];
+			return engine.noteOn(note.tone, freq / sampleRate, Wavetable.getBand(freq), -1);
+		}
+		return engine.noteOff(note.tone);
+	}
+}
@@ -0,0 +1,64 @@
+package com.wordsaretoys.mtx;
+
+import java.io.IOException;
+
+/**
+ * render loop, streams engine blocks into a sink
+ * for as long as the thread runs
+ * 
+ * a sink that blocks on write (like a live output) sets
+ * the pace; otherwise the loop runs as fast as it can
+ */
+public class Player extends Needle {
+
+	// block source and destination
+	Engine engine;
+	Sink sink;
+	
+	// output block
+	short[] block;
+	
+	/**
+	 * ctor
+	 */
+	public Player(String name, Engine engine, Sink sink) {
+		super(name, 0);
+		this.engine = engine;
+		this.sink = sink;
+		block = new short[engine.getBlockLen()];
+	}
+	
+	/**
+	 * get current time in ms, on the clock 
+	 * that note-on times are taken from
+	 */
+	protected long now() {
+		return System.nanoTime() / 1000000;
+	}
+	
+	/**
+	 * render one block and write it to the sink
+	 */
+	public void renderBlock() throws IOException {
+		// frames still pending in the sink are
+		// heard before this block is
+		long pending = sink.getPending();
+		engine.setOutputTime(now() + pending * 1000 / engine.sampleRate);
+		engine.render(block);
+		sink.write(block, block.length);
+		if (sink.hasUnderrun()) {
+			engine.getMetrics().recordUnderrun();
+		}
+	}
+	
+	@Override
+	public void run() {
+		try {
+			while (inPump()) {
+				renderBlock();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.wordsaretoys.mtx;
+
+import java.io.IOException;
+
+/**
+ * destination for rendered blocks of 16-bit mono samples
+ */
+public interface Sink {
+
+	/**
+	 * consume a block of samples
+	 */
+	void write(short[] block, int count) throws IOException;
+	
+	/**
+	 * get frames written but not yet heard
+	 * zero for sinks that aren't played in real time
+	 */
+	long getPending();
+	
+	/**
+	 * true if the output ran dry before the last write
+	 * always false for sinks that aren't played in real time
+	 */
+	boolean hasUnderrun();
+	
+	/**
+	 * flush anything pending and release the output
+	 */
+	void close() throws IOException;
+}
@@ -0,0 +1,92 @@
+package com.wordsaretoys.mtx;
+
+/**
+ * equal temperament pitch math for scales given as
+ * lists of intervals; no android dependencies, so it
+ * can be exercised on a plain JVM
+ */
+public class Tuning {
+
+	static int OctaveLo = 0;
+	static int OctaveMid = 4;
+	static int OctaveHi = 9;
+	
+	/**
+	 * generate pitches for every tone of a scale in every
+	 * octave, reusing the pitch array if it fits
+	 * steps holds the interval from each tone to the next
+	 */
+	public static float[] getPitches(int[] steps, float[] pitches) {
+		// is the pitch array correctly sized?
+		int len = steps.length * (OctaveHi - OctaveLo + 1);
+		if (pitches == null || pitches.length != len) {
+			pitches = new float[len];
+		}
+
+		// interval sum gives us total number of tones
+		int sum = 0;
+		for (int i = 0; i < steps.length; i++) {
+			sum += steps[i];
+		}
+		
+		// generate scale root
+		float root = (float) Math.pow(2f, 1f / sum);
+		
+		// for each octave
+		for (int o = OctaveLo; o <= OctaveHi; o++) {
+			int on = sum * (o - OctaveMid);
+			int oi = steps.length * (o - OctaveLo);
+			// for each scale degree within the octave 
+			for (int i = 0, step = 0; i < steps.length; i++) {
+				// lock zero to the octave start
+				pitches[i + oi] = (float)(440f * Math.pow(root, step + on - 0.75f * sum));
+				// sum the next interval to get scale degree
+				step += steps[i];
+			}
+		}
+		return pitches;
+	}
+	
+	/**
+	 * get the pitches of every tone in an octave range,
+	 * plus the first tone of the next octave, from a
+	 * pitch array of toneCount tones per octave
+	 */
+	public static float[] getRange(float[] pitches, int toneCount, 
+			int octaveLo, int octaveHi) {
+		int oc = octaveHi - octaveLo + 1;
+		float[] range = new float[toneCount * oc + 1];
+		int first = (octaveLo - OctaveLo) * toneCount;
+		System.arraycopy(pitches, first, range, 0, range.length);
+		return range;
+	}
+	
+	/**
+	 * parse interval data from string
+	 * of format "n,n,n,...,n" where
+	 * n is any integer > 0
+	 */
+	public static int[] parseSteps(String text) {
+		String [] s = text.split(",");
+		int[] steps = new int[s.length];
+		for (int i = 0; i < s.length; i++) {
+			steps[i] = Integer.parseInt(s[i]);
+		}
+		return steps;
+	}
+	
+	/**
+	 * format interval data as string
+	 * of format "n,n,n,...,n"
+	 */
+	public static String formatSteps(int[] steps) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < steps.length; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(steps[i]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,117 @@
+package com.wordsaretoys.mtx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * streams blocks of 16-bit mono PCM into a WAV file
+ * through a reusable buffer, in constant memory
+ */
+public class WavSink implements Sink {
+
+	static int HeaderLen = 44;
+	
+	// output file channel
+	FileChannel channel;
+	
+	// little-endian staging buffer
+	ByteBuffer buffer;
+	
+	// sample rate and frames written so far
+	int sampleRate;
+	int frames;
+	
+	/**
+	 * ctor, creates (or truncates) the file
+	 */
+	public WavSink(File file, int sampleRate) throws IOException {
+		this.sampleRate = sampleRate;
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		channel.truncate(0);
+		buffer = ByteBuffer.allocateDirect(Engine.BlockLen * 2);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		// sizes are filled in on close
+		writeHeader();
+		// header writes are positional, so skip past it
+		channel.position(HeaderLen);
+	}
+	
+	/**
+	 * append a block of samples
+	 */
+	@Override
+	public void write(short[] block, int count) throws IOException {
+		if (buffer.capacity() < count * 2) {
+			buffer = ByteBuffer.allocateDirect(count * 2);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		buffer.clear();
+		for (int i = 0; i < count; i++) {
+			buffer.putShort(block[i]);
+		}
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		frames += count;
+	}
+	
+	/**
+	 * get number of frames written
+	 */
+	public int getFrames() {
+		return frames;
+	}
+	
+	@Override
+	public long getPending() {
+		return 0;
+	}
+	
+	@Override
+	public boolean hasUnderrun() {
+		return false;
+	}
+	
+	/**
+	 * finish the header and close the file
+	 */
+	@Override
+	public void close() throws IOException {
+		writeHeader();
+		channel.close();
+	}
+	
+	/**
+	 * write the RIFF header at the start of the file
+	 */
+	void writeHeader() throws IOException {
+		int dataLen = frames * 2;
+		ByteBuffer header = ByteBuffer.allocate(HeaderLen);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.put(new byte[] {'R', 'I', 'F', 'F'});
+		header.putInt(36 + dataLen);
+		header.put(new byte[] {'W', 'A', 'V', 'E'});
+		header.put(new byte[] {'f', 'm', 't', ' '});
+		header.putInt(16);
+		// PCM, mono
+		header.putShort((short) 1);
+		header.putShort((short) 1);
+		header.putInt(sampleRate);
+		// byte rate, block align, bits per sample
+		header.putInt(sampleRate * 2);
+		header.putShort((short) 2);
+		header.putShort((short) 16);
+		header.put(new byte[] {'d', 'a', 't', 'a'});
+		header.putInt(dataLen);
+		header.flip();
+		long position = 0;
+		while (header.hasRemaining()) {
+			position += channel.write(header, position);
+		}
+	}
+}
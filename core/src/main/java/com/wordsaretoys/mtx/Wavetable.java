@@ -0,0 +1,139 @@
+package com.wordsaretoys.mtx;
+
+/**
+ * single-cycle instrument waveform, rendered once
+ * from its harmonics and shared by every tone
+ *
+ * the waveform is mipmapped into one table per octave
+ * band, each holding only the partials that stay below
+ * nyquist for the highest fundamental in that band
+ */
+public class Wavetable {
+	
+	// samples per cycle, a power of two
+	final static int TableBits = 11;
+	final static int TableLen = 1 << TableBits;
+	final static int TableMod = TableLen - 1;
+	
+	// one sine cycle over two table lengths, so every
+	// harmonic's samples fall exactly on an entry
+	static float[] Sine = new float[TableLen * 2];
+	static int SineMod = Sine.length - 1;
+	static {
+		for (int i = 0; i < Sine.length; i++) {
+			Sine[i] = (float) Math.sin(2 * Math.PI * i / Sine.length);
+		}
+	}
+	
+	// lowest fundamental covered (bottom of octave 0)
+	static float BandBase = 16.35f;
+	
+	// one band per scale octave, plus the top note
+	static int BandCount = Tuning.OctaveHi - Tuning.OctaveLo + 2;
+	
+	// sample tables, indexed by band
+	short[][] bands;
+	
+	// harmonic amplitudes and their sum
+	float[] harmonics;
+	float total;
+	
+	// number of partials each band keeps
+	int[] counts;
+	
+	/**
+	 * ctor, renders the band tables from harmonic amplitudes;
+	 * each band renders on its own, so tables don't depend
+	 * on the order they're rendered in
+	 *
+	 * harmonic index h spans (h + 1) half-cycles of the
+	 * table, so odd indexes produce the "folded" partials
+	 * that some voices rely on
+	 */
+	public Wavetable(float[] harmonics, int sampleRate) {
+		this.harmonics = harmonics;
+		bands = new short[BandCount][];
+		counts = new int[BandCount];
+		
+		// get harmonic sum over all partials, so a band
+		// that loses its upper partials doesn't get louder
+		for (int h = 0; h < harmonics.length; h++) {
+			total += harmonics[h];
+		}
+		
+		for (int b = 0; b < BandCount; b++) {
+			// how many partials fit under nyquist at the top of the band?
+			float top = BandBase * (float) Math.pow(2, b + 1);
+			int count = 0;
+			while (count < harmonics.length &&
+					(count + 1) * 0.5f * top < sampleRate * 0.5f) {
+				count++;
+			}
+			counts[b] = count;
+		}
+		
+		for (int b = 0; b < BandCount; b++) {
+			bands[b] = isShared(b) ? bands[b - 1] : render(counts[b]);
+		}
+	}
+	
+	/**
+	 * true if a band has the same partials as the band 
+	 * below it, and can share its table
+	 */
+	boolean isShared(int band) {
+		return band > 0 && counts[band] == counts[band - 1];
+	}
+	
+	/**
+	 * render a table from the first count harmonics
+	 */
+	short[] render(int count) {
+		float[] accum = new float[TableLen];
+		for (int h = 0; h < count; h++) {
+			if (harmonics[h] != 0) {
+				// sin((h + 1) * pi * i / TableLen) by table lookup
+				int k = h + 1;
+				float a = harmonics[h] / total;
+				for (int i = 0; i < TableLen; i++) {
+					accum[i] += a * Sine[(k * i) & SineMod];
+				}
+			}
+		}
+		// convert to 16 bits once, saturating
+		short[] table = new short[TableLen];
+		for (int i = 0; i < TableLen; i++) {
+			float s = accum[i] * 16384;
+			table[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, s));
+		}
+		return table;
+	}
+	
+	/**
+	 * get band index for a fundamental frequency
+	 */
+	public static int getBand(float freq) {
+		int b = (int) Math.floor(Math.log(freq / BandBase) / Math.log(2));
+		return Math.max(0, Math.min(BandCount - 1, b));
+	}
+	
+	/**
+	 * get table for the specified band
+	 */
+	public short[] getTable(int band) {
+		return bands[band];
+	}
+	
+	/**
+	 * get memory used by the tables, in bytes
+	 */
+	public int getSize() {
+		int size = 0;
+		for (int b = 0; b < BandCount; b++) {
+			if (!isShared(b)) {
+				size += bands[b].length * 2;
+			}
+		}
+		return size;
+	}
+}
@@ -0,0 +1,89 @@
+package com.wordsaretoys.mtx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EngineTest {
+
+	// largest envelope change between samples mid-decay
+	static float MaxStep = 0.001f;
+
+	@Test
+	public void setTimbreRejectsBadIndex() {
+		Engine engine = PlayerTest.newEngine();
+		short[] block = new short[Engine.BlockLen];
+		assertFalse(engine.setTimbre(-1));
+		assertFalse(engine.setTimbre(1));
+		assertTrue(engine.setTimbre(0));
+		// nothing bad reached the renderer
+		engine.render(block);
+		assertEquals(1, engine.getMetrics().getBlocks());
+	}
+	
+	@Test
+	public void fullQueueCountsDrops() {
+		Engine engine = PlayerTest.newEngine();
+		int accepted = 0;
+		for (int i = 0; i < Engine.QueueLen + 10; i++) {
+			if (engine.noteOff(0)) {
+				accepted++;
+			}
+		}
+		assertEquals(Engine.QueueLen, accepted);
+		assertEquals(10, engine.getMetrics().getDropped());
+		// room again once the renderer drains it
+		engine.render(new short[Engine.BlockLen]);
+		assertTrue(engine.noteOff(0));
+	}
+	
+	@Test
+	public void timbreSwitchKeepsEnvelopeContinuous() {
+		int rate = PlayerTest.SampleRate;
+		Engine engine = new Engine(rate);
+		Wavetable wavetable = new Wavetable(Lookup.VoiceSource[0], rate);
+		// a slow decay to a low sustain, then a full sustain
+		engine.addTimbre(wavetable, 5, 800, 0.3f, 25);
+		engine.addTimbre(wavetable, 5, 100, 1, 25);
+		short[] block = new short[Engine.BlockLen];
+		engine.noteOn(0, 220f / rate, Wavetable.getBand(220), -1);
+		engine.render(block);
+		Engine.Voice voice = engine.voices[engine.held[0]];
+		while (voice.state != Engine.Decay || voice.level > 0.6f) {
+			engine.render(block);
+		}
+		float last = engine.env[engine.env.length - 1];
+		
+		assertTrue(engine.setTimbre(1));
+		engine.render(block);
+		assertEquals(last, engine.env[0], MaxStep);
+		for (int i = 1; i < engine.env.length; i++) {
+			assertEquals(engine.env[i - 1], engine.env[i], MaxStep);
+		}
+		// still on its own decay, not the new sustain
+		assertEquals(Engine.Decay, voice.state);
+		assertTrue(voice.level < last);
+	}
+	
+	@Test
+	public void highTonesGrowIndexThroughQueue() {
+		Engine engine = PlayerTest.newEngine();
+		short[] block = new short[Engine.BlockLen];
+		// 72 tones per octave over three octaves, plus one
+		int tone = 72 * 3;
+		assertTrue(engine.noteOn(tone, 440f / PlayerTest.SampleRate, 
+				Wavetable.getBand(440), -1));
+		// the renderer hasn't seen the larger index yet
+		assertEquals(128, engine.held.length);
+		engine.render(block);
+		assertTrue(engine.held.length > tone);
+		assertEquals(1, engine.getActiveVoices());
+		assertEquals(tone, engine.voices[engine.held[tone]].tone);
+		// later tones in range need no further events
+		assertTrue(engine.noteOn(tone - 1, 440f / PlayerTest.SampleRate, 
+				Wavetable.getBand(440), -1));
+		assertEquals(1, engine.events.head - engine.events.tail);
+	}
+}
@@ -0,0 +1,29 @@
+package com.wordsaretoys.mtx;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyMeterTest {
+
+	@Test
+	public void emptyMeterReportsZero() {
+		LatencyMeter meter = new LatencyMeter();
+		assertEquals(0, meter.getPercentile(0.5f));
+		assertEquals(0, meter.getPercentile(0.95f));
+		assertEquals("latency n=0 mean=0.0 p50=0 p95=0 max=0", meter.toString());
+	}
+	
+	@Test
+	public void percentilesRoundUpToBucket() {
+		LatencyMeter meter = new LatencyMeter();
+		for (int ms = 0; ms < 10; ms++) {
+			meter.record(ms);
+		}
+		assertEquals(6, meter.getPercentile(0.5f));
+		assertEquals(10, meter.getPercentile(0.95f));
+		// reset empties it again
+		meter.reset();
+		assertEquals(0, meter.getPercentile(0.5f));
+	}
+}
@@ -0,0 +1,64 @@
+package com.wordsaretoys.mtx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OfflineRendererTest {
+
+	static int SampleRate = 44100;
+	
+	// voice 0 releases over 25 ms
+	static int Voice = 0;
+	
+	File file;
+	
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("offline", ".wav");
+	}
+	
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+	
+	@Test
+	public void rendersNotesAndTail() throws IOException {
+		float[] pitches = {220, 277.18f, 329.63f};
+		List<OfflineRenderer.Note> notes = new ArrayList<OfflineRenderer.Note>();
+		notes.add(new OfflineRenderer.Note(0, 0, true));
+		notes.add(new OfflineRenderer.Note(50, 2, true));
+		notes.add(new OfflineRenderer.Note(200, 0, false));
+		notes.add(new OfflineRenderer.Note(300, 2, false));
+		new OfflineRenderer(pitches, Voice, SampleRate).render(notes, file);
+		
+		ByteBuffer wav = WavSinkTest.read(file);
+		int frames = wav.getInt(40) / 2;
+		assertEquals(WavSink.HeaderLen + frames * 2, wav.limit());
+		
+		// every block up to the one holding the last event,
+		// then whole blocks until the release has rung out
+		int len = Engine.BlockLen;
+		int blocks = 300 * SampleRate / 1000 / len + 1;
+		int tail = (int) Math.ceil(Lookup.VoiceRelease[Voice] * SampleRate / 1000 / len);
+		assertEquals(0, frames % len);
+		assertTrue(frames > blocks * len);
+		assertTrue(frames <= (blocks + tail) * len);
+		
+		int peak = 0;
+		for (int i = 0; i < frames; i++) {
+			peak = Math.max(peak, Math.abs(wav.getShort(WavSink.HeaderLen + i * 2)));
+		}
+		assertTrue(peak > 1000);
+	}
+}
@@ -0,0 +1,114 @@
+package com.wordsaretoys.mtx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * drives the production render loop into file and null sinks
+ */
+public class PlayerTest {
+
+	static int SampleRate = 44100;
+	
+	// blocks rendered per test
+	static int Blocks = 40;
+	
+	// fixed note list: block, tone, frequency, on/off
+	static int[] NoteBlocks = {0, 0, 2, 10, 12, 12};
+	static int[] NoteTones = {0, 1, 2, 0, 1, 2};
+	static float[] NoteFreqs = {220, 277.18f, 329.63f, 220, 277.18f, 329.63f};
+	static boolean[] NoteStarts = {true, true, true, false, false, false};
+	
+	/**
+	 * get an engine playing the first lookup voice
+	 */
+	static Engine newEngine() {
+		Engine engine = new Engine(SampleRate);
+		engine.addTimbre(new Wavetable(Lookup.VoiceSource[0], SampleRate), 
+				Lookup.VoiceAttack[0], Lookup.VoiceDecay[0], 
+				Lookup.VoiceSustain[0], Lookup.VoiceRelease[0]);
+		return engine;
+	}
+	
+	/**
+	 * post the notes that start at a block
+	 */
+	static void post(Engine engine, int block) {
+		for (int n = 0; n < NoteBlocks.length; n++) {
+			if (NoteBlocks[n] == block) {
+				if (NoteStarts[n]) {
+					engine.noteOn(NoteTones[n], NoteFreqs[n] / SampleRate, 
+							Wavetable.getBand(NoteFreqs[n]), -1);
+				} else {
+					engine.noteOff(NoteTones[n]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * play the note list through a player into a sink
+	 */
+	static Engine play(Sink sink) throws IOException {
+		Engine engine = newEngine();
+		Player player = new Player("test", engine, sink);
+		for (int b = 0; b < Blocks; b++) {
+			post(engine, b);
+			player.renderBlock();
+		}
+		sink.close();
+		return engine;
+	}
+	
+	@Test
+	public void nullSink() throws IOException {
+		NullSink sink = new NullSink();
+		Engine engine = play(sink);
+		assertEquals(Blocks * Engine.BlockLen, sink.getFrames());
+		assertEquals(0, sink.getPending());
+		assertFalse(sink.hasUnderrun());
+		
+		Metrics metrics = engine.getMetrics();
+		assertEquals(Blocks, metrics.getBlocks());
+		assertEquals(0, metrics.getUnderruns());
+		assertEquals(3, metrics.getPeakVoices());
+		// every release has finished
+		assertEquals(0, engine.getActiveVoices());
+	}
+	
+	@Test
+	public void wavSink() throws IOException {
+		File file = File.createTempFile("player", ".wav");
+		try {
+			WavSink sink = new WavSink(file, SampleRate);
+			play(sink);
+			assertEquals(Blocks * Engine.BlockLen, sink.getFrames());
+			
+			// the file holds exactly what the engine renders
+			ByteBuffer wav = WavSinkTest.read(file);
+			assertEquals(WavSink.HeaderLen + Blocks * Engine.BlockLen * 2, wav.limit());
+			wav.position(WavSink.HeaderLen);
+			Engine engine = newEngine();
+			short[] block = new short[Engine.BlockLen];
+			int peak = 0;
+			for (int b = 0; b < Blocks; b++) {
+				post(engine, b);
+				engine.render(block);
+				for (int i = 0; i < block.length; i++) {
+					assertEquals(block[i], wav.getShort());
+					peak = Math.max(peak, Math.abs(block[i]));
+				}
+			}
+			assertTrue(peak > 1000);
+		} finally {
+			file.delete();
+		}
+	}
+}
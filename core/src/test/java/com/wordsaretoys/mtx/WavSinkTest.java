@@ -0,0 +1,76 @@
+package com.wordsaretoys.mtx;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WavSinkTest {
+
+	File file;
+	
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("wavsink", ".wav");
+	}
+	
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+	
+	/**
+	 * read a whole file as little-endian data
+	 */
+	static ByteBuffer read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte[] data = new byte[(int) raf.length()];
+			raf.readFully(data);
+			return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	@Test
+	public void roundTrip() throws IOException {
+		short[] block = new short[Engine.BlockLen];
+		WavSink sink = new WavSink(file, 44100);
+		for (int b = 0; b < 2; b++) {
+			for (int i = 0; i < block.length; i++) {
+				block[i] = (short) (b * block.length + i + 1);
+			}
+			sink.write(block, block.length);
+		}
+		sink.close();
+		assertEquals(2 * block.length, sink.getFrames());
+		
+		int dataLen = 2 * block.length * 2;
+		ByteBuffer wav = read(file);
+		assertEquals(WavSink.HeaderLen + dataLen, wav.limit());
+		assertEquals(36 + dataLen, wav.getInt(4));
+		assertEquals(44100, wav.getInt(24));
+		assertEquals(dataLen, wav.getInt(40));
+		// no samples lost under the header
+		assertEquals(1, wav.getShort(WavSink.HeaderLen));
+		assertEquals(2 * block.length, wav.getShort(WavSink.HeaderLen + dataLen - 2));
+	}
+	
+	@Test
+	public void emptyFile() throws IOException {
+		WavSink sink = new WavSink(file, 48000);
+		sink.close();
+		ByteBuffer wav = read(file);
+		assertEquals(WavSink.HeaderLen, wav.limit());
+		assertEquals(36, wav.getInt(4));
+		assertEquals(0, wav.getInt(40));
+	}
+}